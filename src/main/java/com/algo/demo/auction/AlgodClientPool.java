@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2020 ycy
+ */
+package com.algo.demo.auction;
+
+import com.algorand.algosdk.v2.client.common.AlgodClient;
+import com.algorand.algosdk.v2.client.common.Response;
+import com.algorand.algosdk.v2.client.model.NodeStatusResponse;
+import com.algorand.algosdk.v2.client.model.PendingTransactionResponse;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Pool of algod nodes: <br/>
+ * one long-lived client per node, so http connections are kept alive and reused, <br/>
+ * reads are spread across nodes by latency and error rate, and hedged to another node once they pass the p99, <br/>
+ * round-bound reads (blocks, reads after our own writes) only go to nodes known to have reached the round, <br/>
+ * submissions stay pinned to the healthiest node.
+ *
+ * @author chongyu.yuan
+ * @since 2022/1/24
+ */
+public class AlgodClientPool {
+
+    private static final int LATENCY_WINDOW = 128;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 500;
+    private static final double EWMA_ALPHA = 0.2;
+    // re-pin only to a clearly healthier node, so confirmations keep polling the node a transaction was sent to
+    private static final double REPIN_SCORE_RATIO = 2;
+
+    private final List<Node> nodes;
+    private final ExecutorService executor;
+    private final Random random = new Random();
+    private volatile Node pinned;
+    // reads must see our own confirmed writes, see advanceReadRound
+    private final AtomicLong readRound = new AtomicLong();
+
+    public AlgodClientPool(List<String> apiAddrs, Integer port, String apiTokenKey, String apiToken) {
+        if (apiAddrs == null || apiAddrs.isEmpty()) {
+            throw new IllegalArgumentException("No algod endpoints for AlgodClientPool.");
+        }
+        nodes = apiAddrs.stream()
+            .map(addr -> new Node(addr, new AlgodClient(addr, port, apiToken, apiTokenKey),
+                new BlockReader(addr, port, apiToken, apiTokenKey))).collect(Collectors.toList());
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "algod-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Read call, e.g. AccountInformation, GetApplicationByID, PendingTransactionInformation
+     */
+    public <T> Response<T> read(ClientCall<T> call) throws Exception {
+        return read(call, readRound.get());
+    }
+
+    /**
+     * Read call served by a node which has reached minRound
+     */
+    public <T> Response<T> read(ClientCall<T> call, Long minRound) throws Exception {
+        return hedge(node -> node.reads, node -> call.execute(node.client), AlgodClientPool::isNodeError,
+            Math.max(minRound, readRound.get()));
+    }
+
+    public BlockReader.Block readBlock(Long round, Long appID) throws Exception {
+        return hedge(node -> node.blocks, node -> node.blockReader.getBlock(round, appID), block -> false, round);
+    }
+
+    /**
+     * Reads from now on only go to nodes which have reached round, e.g. the confirmed round of our own transaction
+     */
+    public void advanceReadRound(Long round) {
+        readRound.accumulateAndGet(round, Math::max);
+    }
+
+    /**
+     * Submit call (RawTransaction, GetStatus for confirmation), always on the pinned node
+     */
+    public <T> Response<T> submit(ClientCall<T> call) throws Exception {
+        Node node = pinnedNode();
+        return execute(node, node.submits, n -> call.execute(n.client), AlgodClientPool::isNodeError);
+    }
+
+    /**
+     * WaitForBlock on the pinned node, a long-poll call which doesn't count as latency
+     */
+    public Response<NodeStatusResponse> waitForBlock(Long round) throws Exception {
+        return waitForBlock(pinnedNode(), round);
+    }
+
+    public String stats() {
+        return nodes.stream().map(Node::toString).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    // kind: stats per kind of call, so slow block reads don't set the p99 (hedge delay) of fast reads
+    private <T> T hedge(Function<Node, Stats> kind, NodeCall<T> call, Predicate<T> isError, long minRound)
+        throws Exception {
+        List<Node> candidates = eligibleNodes(minRound);
+        Node primary = pickNode(candidates);
+        if (candidates.size() == 1) {
+            return execute(primary, kind.apply(primary), call, isError);
+        }
+
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<T>> futures = Lists.newArrayList();
+        futures.add(completionService.submit(attempt(primary, kind, call, isError)));
+        int outstanding = 1;
+        try {
+            Future<T> done = completionService.poll(kind.apply(primary).hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            if (done == null) {
+                // primary passed its p99, hedge to the best other node
+                futures.add(completionService.submit(attempt(bestNode(candidates, primary), kind, call, isError)));
+                outstanding++;
+                done = completionService.take();
+            }
+            while (true) {
+                outstanding--;
+                T result = null;
+                Exception failure = null;
+                try {
+                    result = done.get();
+                    if (!isError.test(result)) {
+                        return result;
+                    }
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                if (futures.size() == 1) {
+                    // primary failed fast, retry once on the best other node
+                    futures.add(
+                        completionService.submit(attempt(bestNode(candidates, primary), kind, call, isError)));
+                    outstanding++;
+                } else if (outstanding == 0) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return result;
+                }
+                done = completionService.take();
+            }
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private <T> Callable<T> attempt(Node node, Function<Node, Stats> kind, NodeCall<T> call, Predicate<T> isError) {
+        return () -> execute(node, kind.apply(node), call, isError);
+    }
+
+    private <T> T execute(Node node, Stats stats, NodeCall<T> call, Predicate<T> isError) throws Exception {
+        long start = System.nanoTime();
+        try {
+            T result = call.execute(node);
+            node.observeRound(roundOf(result));
+            stats.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), isError.test(result));
+            return result;
+        } catch (Exception e) {
+            // a hedge loser cancelled by us is not a sample of the node
+            if (!isCancelled(e)) {
+                stats.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), e instanceof IOException);
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isCancelled(Exception e) {
+        return Thread.currentThread().isInterrupted() || e instanceof InterruptedException
+            || e instanceof InterruptedIOException;
+    }
+
+    // nodes known to have reached minRound, the others are probed so they can serve later reads
+    private List<Node> eligibleNodes(long minRound) throws Exception {
+        List<Node> eligible = Lists.newArrayList();
+        for (Node node : nodes) {
+            if (node.lastRound() >= minRound) {
+                eligible.add(node);
+            } else {
+                probe(node);
+            }
+        }
+        if (eligible.isEmpty()) {
+            // none known to have the round yet, wait for the pinned node to reach it
+            Node node = pinnedNode();
+            while (node.lastRound() < minRound) {
+                Response<NodeStatusResponse> resp = waitForBlock(node, minRound - 1);
+                if (!resp.isSuccessful()) {
+                    throw new Exception(resp.message());
+                }
+            }
+            eligible.add(node);
+        }
+        return eligible;
+    }
+
+    private void probe(Node node) {
+        if (node.probing.compareAndSet(false, true)) {
+            executor.submit(() -> {
+                try {
+                    execute(node, node.reads, n -> n.client.GetStatus().execute(), AlgodClientPool::isNodeError);
+                } catch (Exception e) {
+                    // recorded by execute, the node stays ineligible
+                } finally {
+                    node.probing.set(false);
+                }
+            });
+        }
+    }
+
+    private Response<NodeStatusResponse> waitForBlock(Node node, Long round) throws Exception {
+        Response<NodeStatusResponse> resp = node.client.WaitForBlock(round).execute();
+        node.observeRound(roundOf(resp));
+        return resp;
+    }
+
+    // a lower bound of the node's last round, from what it returned
+    private static Long roundOf(Object result) {
+        if (result instanceof BlockReader.Block) {
+            return ((BlockReader.Block) result).round;
+        }
+        if (!(result instanceof Response) || !((Response<?>) result).isSuccessful()) {
+            return null;
+        }
+        Object body = ((Response<?>) result).body();
+        if (body instanceof NodeStatusResponse) {
+            return ((NodeStatusResponse) body).lastRound;
+        } else if (body instanceof PendingTransactionResponse) {
+            return ((PendingTransactionResponse) body).confirmedRound;
+        } else if (body instanceof com.algorand.algosdk.v2.client.model.Account) {
+            return ((com.algorand.algosdk.v2.client.model.Account) body).round;
+        }
+        return null;
+    }
+
+    // power of two choices: spread load, but route around slow or failing nodes
+    private Node pickNode(List<Node> candidates) {
+        Node a = candidates.get(random.nextInt(candidates.size()));
+        Node b = candidates.get(random.nextInt(candidates.size()));
+        return a.score() <= b.score() ? a : b;
+    }
+
+    private Node bestNode(List<Node> candidates, Node exclude) {
+        Node best = null;
+        for (Node node : candidates) {
+            if (node != exclude && (best == null || node.score() < best.score())) {
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    // pinned lazily, after the first reads have scored the nodes
+    private Node pinnedNode() {
+        Node node = pinned;
+        Node healthiest = healthiestNode();
+        if (node == null || node != healthiest && healthiest.score() * REPIN_SCORE_RATIO < node.score()) {
+            synchronized (this) {
+                if (pinned == node) {
+                    pinned = healthiest;
+                }
+            }
+        }
+        return pinned;
+    }
+
+    // best score among the nodes already sampled, an unknown node only scores well for lack of samples
+    private Node healthiestNode() {
+        Node best = null;
+        for (Node node : nodes) {
+            if (node.reads.sampled() && (best == null || node.score() < best.score())) {
+                best = node;
+            }
+        }
+        return best == null ? bestNode(nodes, null) : best;
+    }
+
+    private static boolean isNodeError(Response<?> resp) {
+        return resp.code() >= 500;
+    }
+
+    public interface ClientCall<T> {
+
+        Response<T> execute(AlgodClient client) throws Exception;
+    }
+
+    private interface NodeCall<T> {
+
+        T execute(Node node) throws Exception;
+    }
+
+    private static class Node {
+
+        private final String apiAddr;
+        private final AlgodClient client;
+        private final BlockReader blockReader;
+
+        private final Stats reads = new Stats();
+        private final Stats blocks = new Stats();
+        private final Stats submits = new Stats();
+
+        private final AtomicLong lastRound = new AtomicLong();
+        private final AtomicBoolean probing = new AtomicBoolean();
+
+        Node(String apiAddr, AlgodClient client, BlockReader blockReader) {
+            this.apiAddr = apiAddr;
+            this.client = client;
+            this.blockReader = blockReader;
+        }
+
+        void observeRound(Long round) {
+            if (round != null) {
+                lastRound.accumulateAndGet(round, Math::max);
+            }
+        }
+
+        long lastRound() {
+            return lastRound.get();
+        }
+
+        // latency of reads (comparable across nodes), errors of any kind of call
+        double score() {
+            return (reads.latencyMillis() + 1) * (1 + 10 * errorRate());
+        }
+
+        double errorRate() {
+            return Math.max(reads.errorRate(), Math.max(blocks.errorRate(), submits.errorRate()));
+        }
+
+        @Override
+        public String toString() {
+            return apiAddr + " (reads: " + reads + ", blocks: " + blocks + ", submits: " + submits + ")";
+        }
+    }
+
+    private static class Stats {
+
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int samples;
+        private double latencyMillis;
+        private double errorRate;
+
+        synchronized void record(long millis, boolean error) {
+            latencies[samples % LATENCY_WINDOW] = millis;
+            samples++;
+            latencyMillis = samples == 1 ? millis : latencyMillis + EWMA_ALPHA * (millis - latencyMillis);
+            errorRate = errorRate + EWMA_ALPHA * ((error ? 1 : 0) - errorRate);
+        }
+
+        synchronized boolean sampled() {
+            return samples > 0;
+        }
+
+        synchronized double latencyMillis() {
+            return latencyMillis;
+        }
+
+        synchronized double errorRate() {
+            return errorRate;
+        }
+
+        synchronized long hedgeDelayMillis() {
+            int n = Math.min(samples, LATENCY_WINDOW);
+            if (n < MIN_HEDGE_SAMPLES) {
+                return DEFAULT_HEDGE_DELAY_MS;
+            }
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(n * 0.99) - 1];
+        }
+
+        @Override
+        public synchronized String toString() {
+            return Math.round(latencyMillis) + "ms/" + String.format("%.2f", errorRate);
+        }
+    }
+
+}
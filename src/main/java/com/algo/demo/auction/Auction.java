@@ -8,15 +8,16 @@ import com.algorand.algosdk.crypto.Address;
 import com.algorand.algosdk.crypto.TEALProgram;
 import com.algorand.algosdk.logic.StateSchema;
 import com.algorand.algosdk.transaction.Transaction;
-import com.algorand.algosdk.v2.client.common.AlgodClient;
 import com.algorand.algosdk.v2.client.model.PendingTransactionResponse;
 import com.algorand.algosdk.v2.client.model.TransactionParametersResponse;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import java.math.BigInteger;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -33,14 +34,18 @@ public class Auction {
     // TODO CHANGEME local env
     private final String BASE_TEAL_PATH = "<-- PATH_FOR_TEAL_CONTRACT_FILES -->";
 
-    // TODO CHANGEME testnet
-    private final String ALGOD_API_ADDR = "https://testnet-algorand.api.purestake.io/ps2";
+    // TODO CHANGEME testnet, reads are spread across all algod nodes listed here
+    private final List<String> ALGOD_API_ADDRS = Lists.newArrayList("https://testnet-algorand.api.purestake.io/ps2");
     private final Integer ALGOD_PORT = 443;
     private final String ALGOD_API_TOKEN_KEY = "X-API-Key";
     private final String ALGOD_API_TOKEN = "<-- API_TOKEN -->";
     private final Account FUNDING_ACCOUNT = new Account("<-- MNEMONIC_FOR_FUNDING_ACOUNT -->");
 
-    private AlgodClient client;
+    // TODO CHANGEME true: bids only record refunds owed (auction_approval_deferred_refund.teal),
+    // which are claimed in batch before closing
+    private final Boolean DEFERRED_REFUND = false;
+
+    private AlgodClientPool pool;
     private Account creator;
     private Account seller;
     private Account buyer;
@@ -52,24 +57,26 @@ public class Auction {
 
     private Long nftID;
     private Long appID;
+    private Long setupRound;
+    private Set<Address> optedIn = Sets.newHashSet();
 
     public Auction() throws Exception {
         System.out.println("=== prepare account start");
 
-        client = new AlgodClient(ALGOD_API_ADDR, ALGOD_PORT, ALGOD_API_TOKEN, ALGOD_API_TOKEN_KEY);
+        pool = new AlgodClientPool(ALGOD_API_ADDRS, ALGOD_PORT, ALGOD_API_TOKEN_KEY, ALGOD_API_TOKEN);
         System.out.println("Funding account: " + FUNDING_ACCOUNT.getAddress());
-        System.out.println("Funding account balance(before): " + Utils.getAccountBalance(client, FUNDING_ACCOUNT));
+        System.out.println("Funding account balance(before): " + Utils.getAccountBalance(pool, FUNDING_ACCOUNT));
 
-        prepareAccount(client);
-        System.out.println("Funding account balance(after): " + Utils.getAccountBalance(client, FUNDING_ACCOUNT));
+        prepareAccount(pool);
+        System.out.println("Funding account balance(after): " + Utils.getAccountBalance(pool, FUNDING_ACCOUNT));
 
         // print accounts info
         System.out.println(
-            "Bob (creator account): " + creator.getAddress() + ", " + Utils.getAccountBalance(client, creator));
+            "Bob (creator account): " + creator.getAddress() + ", " + Utils.getAccountBalance(pool, creator));
         System.out.println(
-            "Alice (seller account): " + seller.getAddress() + ", " + Utils.getAccountBalance(client, seller));
+            "Alice (seller account): " + seller.getAddress() + ", " + Utils.getAccountBalance(pool, seller));
         System.out.println(
-            "Carla (buyer account): " + buyer.getAddress() + ", " + Utils.getAccountBalance(client, buyer));
+            "Carla (buyer account): " + buyer.getAddress() + ", " + Utils.getAccountBalance(pool, buyer));
 
         System.out.println("=== prepare account finish");
     }
@@ -80,7 +87,7 @@ public class Auction {
      * Alice as seller, <br/>
      * Carla as buyer. <br/>
      */
-    private void prepareAccount(AlgodClient client) {
+    private void prepareAccount(AlgodClientPool pool) {
         try {
             // create 3 accounts
             List<Account> accounts = Utils.createAccounts(3);
@@ -90,16 +97,16 @@ public class Auction {
 
             // initial funding
             long fundingAmount = 1_000_000;
-            TransactionParametersResponse sp = Utils.getSuggestedParams(client);
+            TransactionParametersResponse sp = Utils.getSuggestedParams(pool);
             List<Transaction> txns = accounts.stream().map(
                     account -> Transaction.PaymentTransactionBuilder().sender(FUNDING_ACCOUNT.getAddress())
                         .receiver(account.getAddress()).amount(fundingAmount).suggestedParams(sp).build())
                 .collect(Collectors.toList());
             List<Object> signAccounts = Lists.newArrayList(FUNDING_ACCOUNT, FUNDING_ACCOUNT, FUNDING_ACCOUNT);
 
-            String txId = Utils.sendTransaction(client, Utils.signTransactions(signAccounts, txns));
+            String txId = Utils.sendTransaction(pool, Utils.signTransactions(signAccounts, txns));
             // Wait for transaction confirmation
-            PendingTransactionResponse pTrx = Utils.waitForConfirmation(client, txId, 10);
+            PendingTransactionResponse pTrx = Utils.waitForConfirmation(pool, txId, 10);
             System.out.println("Transaction " + txId + " confirmed in round " + pTrx.confirmedRound);
         } catch (Exception e) {
             e.printStackTrace();
@@ -130,22 +137,22 @@ public class Auction {
 
         String randomNumber = Math.abs(new Random().nextInt(999)) + "";
 
-        TransactionParametersResponse sp = Utils.getSuggestedParams(client);
+        TransactionParametersResponse sp = Utils.getSuggestedParams(pool);
         Address sellerAddress = seller.getAddress();
         Transaction txn = Transaction.AssetCreateTransactionBuilder().sender(sellerAddress).assetTotal(1)
             .assetDecimals(0).defaultFrozen(false).manager(sellerAddress).reserve(sellerAddress).freeze(sellerAddress)
             .clawback(sellerAddress).assetUnitName(randomNumber).assetName(randomNumber)
             .url("https://dummy.asset/" + randomNumber).noteUTF8(randomNumber).suggestedParams(sp).build();
 
-        String txId = Utils.sendTransaction(client, (Utils.signTransaction(seller, txn)));
+        String txId = Utils.sendTransaction(pool, (Utils.signTransaction(seller, txn)));
 
         // Wait for transaction confirmation
-        PendingTransactionResponse pTrx = Utils.waitForConfirmation(client, txId, 10);
+        PendingTransactionResponse pTrx = Utils.waitForConfirmation(pool, txId, 10);
         nftID = pTrx.assetIndex;
 
         System.out.println("Transaction " + txId + " confirmed in round " + pTrx.confirmedRound);
         System.out.println("The NFT ID is: " + nftID);
-        System.out.println("Alice's balances: " + Utils.getAccountBalance(client, seller));
+        System.out.println("Alice's balances: " + Utils.getAccountBalance(pool, seller));
 
         System.out.println("=== prepare nft finish");
     }
@@ -157,10 +164,11 @@ public class Auction {
         System.out.println("=== create auction start");
         System.out.println("Bob is creating an auction that lasts 30 seconds to auction off the NFT...");
 
-        byte[] programApproval = Utils.compileFile(client, BASE_TEAL_PATH + "auction_approval.teal");
-        byte[] clearApproval = Utils.compileFile(client, BASE_TEAL_PATH + "auction_clear_state.teal");
+        String variant = DEFERRED_REFUND ? "_deferred_refund" : "";
+        byte[] programApproval = Utils.compileFile(pool, BASE_TEAL_PATH + "auction_approval" + variant + ".teal");
+        byte[] clearApproval = Utils.compileFile(pool, BASE_TEAL_PATH + "auction_clear_state" + variant + ".teal");
 
-        TransactionParametersResponse sp = Utils.getSuggestedParams(client);
+        TransactionParametersResponse sp = Utils.getSuggestedParams(pool);
         //        startTime = int(time()) + 10  # start time is 10 seconds in the future
         //        endTime = startTime + 30  # end time is 30 seconds after start
         //        reserve = 1_000_000  # 1 Algo
@@ -193,11 +201,12 @@ public class Auction {
 
         Transaction txn = Transaction.ApplicationCreateTransactionBuilder().sender(creator.getAddress())
             .approvalProgram(new TEALProgram(programApproval)).clearStateProgram(new TEALProgram(clearApproval))
-            .globalStateSchema(new StateSchema(7, 2)).localStateSchema(new StateSchema(0, 0)).args(args)
+            .globalStateSchema(DEFERRED_REFUND ? new StateSchema(8, 2) : new StateSchema(7, 2))
+            .localStateSchema(DEFERRED_REFUND ? new StateSchema(1, 0) : new StateSchema(0, 0)).args(args)
             .suggestedParams(sp).build();
 
-        String txId = Utils.sendTransaction(client, Utils.signTransaction(creator, txn));
-        PendingTransactionResponse pTrx = Utils.waitForConfirmation(client, txId, 10);
+        String txId = Utils.sendTransaction(pool, Utils.signTransaction(creator, txn));
+        PendingTransactionResponse pTrx = Utils.waitForConfirmation(pool, txId, 10);
         appID = pTrx.applicationIndex;
 
         System.out.println("Transaction " + txId + " confirmed in round " + pTrx.confirmedRound);
@@ -214,7 +223,7 @@ public class Auction {
         System.out.println("Alice is setting up and funding NFT auction...");
 
         Address appAddress = Address.forApplication(appID);
-        TransactionParametersResponse sp = Utils.getSuggestedParams(client);
+        TransactionParametersResponse sp = Utils.getSuggestedParams(pool);
         //        fundingAmount = (
         //            # min account balance
         //            100_000
@@ -259,22 +268,23 @@ public class Auction {
         List<Transaction> txns = Lists.newArrayList(fundAppTxn, setupTxn, fundNftTxn);
         List<Object> signAccounts = Lists.newArrayList(creator, creator, seller);
 
-        String txId = Utils.sendTransaction(client, (Utils.signTransactions(signAccounts, txns)));
+        String txId = Utils.sendTransaction(pool, (Utils.signTransactions(signAccounts, txns)));
         // Wait for transaction confirmation
-        PendingTransactionResponse pTrx = Utils.waitForConfirmation(client, txId, 10);
+        PendingTransactionResponse pTrx = Utils.waitForConfirmation(pool, txId, 10);
+        setupRound = pTrx.confirmedRound;
 
         System.out.println("Transaction " + txId + " confirmed in round " + pTrx.confirmedRound);
-        System.out.println("Alice's balances: " + Utils.getAccountBalance(client, seller));
+        System.out.println("Alice's balances: " + Utils.getAccountBalance(pool, seller));
 
         // Wait to start
-        Long lastRound = client.GetStatus().execute().body().lastRound;
-        Long lastRoundTime = Long.valueOf(client.GetBlock(lastRound).execute().body().block.get("ts") + "");
+        Long lastRound = pool.submit(client -> client.GetStatus().execute()).body().lastRound;
+        Long lastRoundTime = pool.readBlock(lastRound, appID).timestamp;
         if (lastRoundTime < startTime + 5) {
             System.out.println("Wait to start: " + (startTime + 5 - lastRoundTime));
             TimeUnit.SECONDS.sleep(startTime + 5 - lastRoundTime);
         }
         System.out.println(
-            "Auction escrow balances: " + Utils.getAccountBalance(client, Address.forApplication(appID)));
+            "Auction escrow balances: " + Utils.getAccountBalance(pool, Address.forApplication(appID)));
 
         System.out.println("=== setup auction finish");
     }
@@ -286,14 +296,22 @@ public class Auction {
         System.out.println("=== placeBid start");
 
         Long bidAmount = reserve;
-        System.out.println("Carla wants to bid on NFT, her balances: " + Utils.getAccountBalance(client, buyer));
+        System.out.println("Carla wants to bid on NFT, her balances: " + Utils.getAccountBalance(pool, buyer));
         System.out.println("Carla is placing bid for " + bidAmount);
 
         Address appAddress = Address.forApplication(appID);
-        Map<String, Object> appGlobalState = Utils.getApplicationGlobalState(client, appID);
-        Object _nftID = appGlobalState.get("nft_id");
-        if (_nftID == null || !nftID.equals(((BigInteger) _nftID).longValue())) {
-            throw new RuntimeException("!nftID.equals(_nftID), " + nftID + ":" + _nftID);
+        //prevBidLeader, not needed by deferred refund
+        List<Address> addresses = Lists.newArrayList();
+        if (!DEFERRED_REFUND) {
+            Map<String, Object> appGlobalState = Utils.getApplicationGlobalState(pool, appID);
+            Object _nftID = appGlobalState.get("nft_id");
+            if (_nftID == null || !nftID.equals(((BigInteger) _nftID).longValue())) {
+                throw new RuntimeException("!nftID.equals(_nftID), " + nftID + ":" + _nftID);
+            }
+            Object bidAddress = appGlobalState.get("bid_account");
+            if (bidAddress != null && bidAddress instanceof byte[]) {
+                addresses.add(new Address((byte[]) bidAddress));
+            }
         }
 
         //        payTxn = transaction.PaymentTxn(
@@ -313,26 +331,33 @@ public class Auction {
         //            accounts=[prevBidLeader] if prevBidLeader is not None else [],
         //            sp=suggestedParams,
         //        )
-        TransactionParametersResponse sp = Utils.getSuggestedParams(client);
-        //prevBidLeader
-        List<Address> addresses = Lists.newArrayList();
-        Object bidAddress = appGlobalState.get("bid_account");
-        if (bidAddress != null && bidAddress instanceof byte[]) {
-            addresses.add(new Address((byte[]) bidAddress));
-        }
+        TransactionParametersResponse sp = Utils.getSuggestedParams(pool);
 
         Transaction payTxn = Transaction.PaymentTransactionBuilder().sender(buyer.getAddress()).receiver(appAddress)
             .amount(bidAmount).suggestedParams(sp).build();
-        Transaction appCallTxn = Transaction.ApplicationCallTransactionBuilder().sender(buyer.getAddress())
-            .applicationId(appID).args(Lists.newArrayList("bid".getBytes())).foreignAssets(Lists.newArrayList(nftID))
-            .accounts(addresses).suggestedParams(sp).build();
+        Transaction appCallTxn;
+        boolean optIn = DEFERRED_REFUND && !optedIn.contains(buyer.getAddress());
+        if (optIn) {
+            // first bid opts in, the refund owed is kept in bidder's local state
+            appCallTxn = Transaction.ApplicationOptInTransactionBuilder().sender(buyer.getAddress())
+                .applicationId(appID).args(Lists.newArrayList("bid".getBytes()))
+                .foreignAssets(Lists.newArrayList(nftID)).suggestedParams(sp).build();
+        } else {
+            appCallTxn = Transaction.ApplicationCallTransactionBuilder().sender(buyer.getAddress())
+                .applicationId(appID).args(Lists.newArrayList("bid".getBytes()))
+                .foreignAssets(Lists.newArrayList(nftID)).accounts(addresses).suggestedParams(sp).build();
+        }
 
         List<Transaction> txns = Lists.newArrayList(payTxn, appCallTxn);
         List<Object> signAccounts = Lists.newArrayList(buyer, buyer);
 
-        String txId = Utils.sendTransaction(client, (Utils.signTransactions(signAccounts, txns)));
+        String txId = Utils.sendTransaction(pool, (Utils.signTransactions(signAccounts, txns)));
         // Wait for transaction confirmation
-        PendingTransactionResponse pTrx = Utils.waitForConfirmation(client, txId, 10);
+        PendingTransactionResponse pTrx = Utils.waitForConfirmation(pool, txId, 10);
+        // a failed or rejected group leaves the bidder not opted in, so the next bid opts in again
+        if (optIn) {
+            optedIn.add(buyer.getAddress());
+        }
 
         System.out.println("Transaction " + txId + " confirmed in round " + pTrx.confirmedRound);
 
@@ -363,13 +388,13 @@ public class Auction {
         //            lease=lease,
         //            rekey_to=rekey_to,
         //            )
-        TransactionParametersResponse sp = Utils.getSuggestedParams(client);
+        TransactionParametersResponse sp = Utils.getSuggestedParams(pool);
         Transaction txn = Transaction.AssetTransferTransactionBuilder().sender(buyer.getAddress())
             .assetReceiver(buyer.getAddress()).assetIndex(nftID).assetAmount(0).suggestedParams(sp).build();
 
-        String txId = Utils.sendTransaction(client, (Utils.signTransaction(buyer, txn)));
+        String txId = Utils.sendTransaction(pool, (Utils.signTransaction(buyer, txn)));
         // Wait for transaction confirmation
-        PendingTransactionResponse pTrx = Utils.waitForConfirmation(client, txId, 10);
+        PendingTransactionResponse pTrx = Utils.waitForConfirmation(pool, txId, 10);
 
         System.out.println("Transaction " + txId + " confirmed in round " + pTrx.confirmedRound);
 
@@ -383,15 +408,30 @@ public class Auction {
         System.out.println("=== closeAuction start");
 
         // Wait to end
-        Long lastRound = client.GetStatus().execute().body().lastRound;
-        Long lastRoundTime = Long.valueOf(client.GetBlock(lastRound).execute().body().block.get("ts") + "");
+        Long lastRound = pool.submit(client -> client.GetStatus().execute()).body().lastRound;
+        Long lastRoundTime = pool.readBlock(lastRound, appID).timestamp;
         if (lastRoundTime < endTime + 5) {
             System.out.println("Wait to end: " + (endTime + 5 - lastRoundTime));
             TimeUnit.SECONDS.sleep(endTime + 5 - lastRoundTime);
         }
         System.out.println("Alice is closing out the auction");
 
-        Map<String, Object> appGlobalState = Utils.getApplicationGlobalState(client, appID);
+        if (DEFERRED_REFUND) {
+            // refunds owed must be settled before the escrow is closed to seller
+            // a bid is checked against the previous round's timestamp,
+            // so none is confirmed after the first round whose timestamp reaches the end
+            Long endRound = pool.submit(client -> client.GetStatus().execute()).body().lastRound;
+            while (pool.readBlock(endRound, appID).timestamp < endTime) {
+                endRound = pool.waitForBlock(endRound).body().lastRound;
+            }
+            RefundClaimService claimService = new RefundClaimService(pool, appID, seller);
+            Set<Address> bidders = claimService.collectBidders(setupRound + 1, endRound);
+            System.out.println("Alice is settling refunds owed to " + bidders.size() + " bidders");
+            claimService.claimAll(bidders).forEach(
+                pTrx -> System.out.println("Claim confirmed in round " + pTrx.confirmedRound));
+        }
+
+        Map<String, Object> appGlobalState = Utils.getApplicationGlobalState(pool, appID);
         Object _nftID = appGlobalState.get("nft_id");
         if (_nftID == null || !nftID.equals(((BigInteger) _nftID).longValue())) {
             throw new RuntimeException("!nftID.equals(_nftID), " + nftID + ":" + _nftID);
@@ -404,7 +444,7 @@ public class Auction {
         //            foreign_assets=[nftID],
         //            sp=client.suggested_params(),
         //        )
-        TransactionParametersResponse sp = Utils.getSuggestedParams(client);
+        TransactionParametersResponse sp = Utils.getSuggestedParams(pool);
         List<Address> addresses = Lists.newArrayList(new Address((byte[]) appGlobalState.get("seller")));
         Object bidAddress = appGlobalState.get("bid_account");
         if (bidAddress != null && bidAddress instanceof byte[]) {
@@ -414,9 +454,9 @@ public class Auction {
         Transaction deleteTxn = Transaction.ApplicationDeleteTransactionBuilder().sender(seller.getAddress())
             .applicationId(appID).accounts(addresses).foreignAssets(Lists.newArrayList(nftID)).suggestedParams(sp)
             .build();
-        String txId = Utils.sendTransaction(client, Utils.signTransaction(seller, deleteTxn));
+        String txId = Utils.sendTransaction(pool, Utils.signTransaction(seller, deleteTxn));
         // Wait for transaction confirmation
-        PendingTransactionResponse pTrx = Utils.waitForConfirmation(client, txId, 10);
+        PendingTransactionResponse pTrx = Utils.waitForConfirmation(pool, txId, 10);
 
         System.out.println("Transaction " + txId + " confirmed in round " + pTrx.confirmedRound);
 
@@ -438,10 +478,11 @@ public class Auction {
         //        assert actualSellerBalances[0] >= sellerAlgosBefore + bidAmount - 1_000
         //        assert actualSellerBalances[nftID] == 0
 
-        System.out.println("The auction escrow now holds the following: " + Utils.getAccountBalance(client,
+        System.out.println("The auction escrow now holds the following: " + Utils.getAccountBalance(pool,
             Address.forApplication(appID)));
-        System.out.println("Alice's balances after auction: " + Utils.getAccountBalance(client, seller));
-        System.out.println("Carla's balances after auction: " + Utils.getAccountBalance(client, buyer));
+        System.out.println("Alice's balances after auction: " + Utils.getAccountBalance(pool, seller));
+        System.out.println("Carla's balances after auction: " + Utils.getAccountBalance(pool, buyer));
+        System.out.println("Algod nodes: " + pool.stats());
 
         System.out.println("=== closeAuction finish");
     }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2020 ycy
+ */
+package com.algo.demo.auction;
+
+import com.algorand.algosdk.crypto.Address;
+import com.google.common.collect.Lists;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+
+/**
+ * Block reader for Algo: <br/>
+ * fetch block as msgpack and decode only the header fields and app-call transactions we need, <br/>
+ * instead of materializing the whole block into a generic Map.
+ *
+ * @author chongyu.yuan
+ * @since 2022/1/24
+ */
+public class BlockReader {
+
+    // same as the OkHttp defaults of AlgodClient
+    private static final int DEFAULT_TIMEOUT_MS = 10_000;
+
+    private final String apiAddr;
+    private final Integer port;
+    private final String apiToken;
+    private final String apiTokenKey;
+    private final Integer connectTimeoutMillis;
+    private final Integer readTimeoutMillis;
+
+    // same argument order as AlgodClient(host, port, token, tokenKey)
+    public BlockReader(String apiAddr, Integer port, String apiToken, String apiTokenKey) {
+        this(apiAddr, port, apiToken, apiTokenKey, DEFAULT_TIMEOUT_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    public BlockReader(String apiAddr, Integer port, String apiToken, String apiTokenKey, Integer connectTimeoutMillis,
+        Integer readTimeoutMillis) {
+        this.apiAddr = apiAddr;
+        this.port = port;
+        this.apiToken = apiToken;
+        this.apiTokenKey = apiTokenKey;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Get block of round, only app-calls of appID are kept (all app-calls if appID is null)
+     */
+    public Block getBlock(Long round, Long appID) throws Exception {
+        // GET /v2/blocks/{round}?format=msgpack
+        URL base = new URL(apiAddr);
+        URL url = new URL(base.getProtocol(), base.getHost(), port,
+            base.getPath() + "/v2/blocks/" + round + "?format=msgpack");
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        // a stalled node must not block the caller (or a cancelled hedge thread) forever
+        conn.setConnectTimeout(connectTimeoutMillis);
+        conn.setReadTimeout(readTimeoutMillis);
+        conn.setRequestProperty(apiTokenKey, apiToken);
+        conn.setRequestProperty("Accept", "application/msgpack");
+
+        int code = conn.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            String msg = conn.getResponseMessage();
+            // drain error body so the connection can be reused
+            try (InputStream err = conn.getErrorStream()) {
+                byte[] buf = new byte[1024];
+                while (err != null && err.read(buf) != -1) {
+                    // discard
+                }
+            }
+            if (code >= 500) {
+                // node failure, as opposed to e.g. a round the node has not reached yet
+                throw new IOException("Get block failed, code: " + code + ", msg: " + msg);
+            }
+            throw new RuntimeException("Get block failed, code: " + code + ", msg: " + msg);
+        }
+        try (InputStream in = new BufferedInputStream(conn.getInputStream())) {
+            return decode(in, appID);
+        }
+    }
+
+    // {"block": {"rnd": .., "ts": .., "txns": [{"txn": {..}, ..}, ..], ..}, "cert": {..}}
+    public static Block decode(InputStream in, Long appID) throws IOException {
+        Block block = new Block();
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(in)) {
+            int size = unpacker.unpackMapHeader();
+            for (int i = 0; i < size; i++) {
+                if ("block".equals(unpacker.unpackString())) {
+                    decodeBlock(unpacker, block, appID);
+                } else {
+                    unpacker.skipValue();
+                }
+            }
+        }
+        return block;
+    }
+
+    private static void decodeBlock(MessageUnpacker unpacker, Block block, Long appID) throws IOException {
+        int size = unpacker.unpackMapHeader();
+        for (int i = 0; i < size; i++) {
+            String key = unpacker.unpackString();
+            if ("rnd".equals(key)) {
+                block.round = unpacker.unpackLong();
+            } else if ("ts".equals(key)) {
+                block.timestamp = unpacker.unpackLong();
+            } else if ("txns".equals(key)) {
+                int count = unpacker.unpackArrayHeader();
+                for (int j = 0; j < count; j++) {
+                    AppCall appCall = decodeSignedTxn(unpacker, appID);
+                    if (appCall != null) {
+                        block.appCalls.add(appCall);
+                    }
+                }
+            } else {
+                unpacker.skipValue();
+            }
+        }
+    }
+
+    // {"txn": {..}, "sig": .., "hgi": .., "dt": .., ..}
+    private static AppCall decodeSignedTxn(MessageUnpacker unpacker, Long appID) throws IOException {
+        AppCall appCall = null;
+        int size = unpacker.unpackMapHeader();
+        for (int i = 0; i < size; i++) {
+            if ("txn".equals(unpacker.unpackString())) {
+                appCall = decodeTxn(unpacker, appID);
+            } else {
+                unpacker.skipValue();
+            }
+        }
+        return appCall;
+    }
+
+    // keys are sorted (canonical msgpack), so "type" comes last: keep the few app-call fields until then
+    private static AppCall decodeTxn(MessageUnpacker unpacker, Long appID) throws IOException {
+        String type = null;
+        Long applicationId = null;
+        Long onCompletion = 0L;
+        List<byte[]> args = null;
+        boolean malformedArgs = false;
+        byte[] sender = null;
+
+        int size = unpacker.unpackMapHeader();
+        for (int i = 0; i < size; i++) {
+            String key = unpacker.unpackString();
+            if ("type".equals(key)) {
+                type = unpacker.unpackString();
+            } else if ("apid".equals(key)) {
+                applicationId = unpacker.unpackLong();
+            } else if ("apan".equals(key)) {
+                onCompletion = unpacker.unpackLong();
+            } else if ("apaa".equals(key)) {
+                int count = unpacker.unpackArrayHeader();
+                args = Lists.newArrayListWithCapacity(count);
+                // decoded before "apid" is known, so a bad arg of another app's txn must not fail the block
+                for (int j = 0; j < count; j++) {
+                    if (unpacker.getNextFormat().getValueType() == ValueType.BINARY) {
+                        args.add(unpacker.readPayload(unpacker.unpackBinaryHeader()));
+                    } else {
+                        malformedArgs = true;
+                        unpacker.skipValue();
+                    }
+                }
+            } else if ("snd".equals(key)) {
+                sender = unpacker.readPayload(unpacker.unpackBinaryHeader());
+            } else {
+                unpacker.skipValue();
+            }
+        }
+
+        // app create has no "apid"
+        if (!"appl".equals(type) || applicationId == null || (appID != null && !appID.equals(applicationId))) {
+            return null;
+        }
+        if (malformedArgs) {
+            throw new RuntimeException("Non-binary app args in txn of app " + applicationId);
+        }
+        AppCall appCall = new AppCall();
+        appCall.sender = new Address(sender);
+        appCall.applicationId = applicationId;
+        appCall.onCompletion = onCompletion;
+        appCall.args = args == null ? Lists.newArrayList() : args;
+        return appCall;
+    }
+
+    public static class Block {
+
+        public Long round;
+        public Long timestamp;
+        public List<AppCall> appCalls = Lists.newArrayList();
+    }
+
+    public static class AppCall {
+
+        public Address sender;
+        public Long applicationId;
+        // 0=NoOp, 1=OptIn, 2=CloseOut, 3=ClearState, 4=UpdateApplication, 5=DeleteApplication
+        public Long onCompletion;
+        public List<byte[]> args;
+    }
+
+}
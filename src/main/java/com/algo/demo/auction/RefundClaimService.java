@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 ycy
+ */
+package com.algo.demo.auction;
+
+import com.algorand.algosdk.account.Account;
+import com.algorand.algosdk.crypto.Address;
+import com.algorand.algosdk.transaction.Transaction;
+import com.algorand.algosdk.v2.client.model.PendingTransactionResponse;
+import com.algorand.algosdk.v2.client.model.TransactionParametersResponse;
+import com.google.common.collect.Lists;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Claim service for the deferred-refund auction (auction_approval_deferred_refund.teal): <br/>
+ * bids only record the refunds owed, this service settles them with "claim" app calls, <br/>
+ * up to 4 bidders per call (accounts array) and up to 16 calls per group.
+ *
+ * @author chongyu.yuan
+ * @since 2022/1/24
+ */
+public class RefundClaimService {
+
+    private static final int ACCOUNTS_PER_CALL = 4;
+    private static final int CALLS_PER_GROUP = 16;
+
+    private final AlgodClientPool pool;
+    private final Long appID;
+    private final Account sender;
+
+    public RefundClaimService(AlgodClientPool pool, Long appID, Account sender) {
+        this.pool = pool;
+        this.appID = appID;
+        this.sender = sender;
+    }
+
+    /**
+     * Collect bidders from the "bid" calls of the app in rounds [fromRound, toRound], on demand or after the auction
+     */
+    public Set<Address> collectBidders(Long fromRound, Long toRound) throws Exception {
+        Set<Address> bidders = new LinkedHashSet<>();
+        for (long round = fromRound; round <= toRound; round++) {
+            BlockReader.Block block = pool.readBlock(round, appID);
+            block.appCalls.stream()
+                .filter(appCall -> !appCall.args.isEmpty() && "bid".equals(new String(appCall.args.get(0))))
+                .forEach(appCall -> bidders.add(appCall.sender));
+        }
+        return bidders;
+    }
+
+    /**
+     * Settle the refunds owed to bidders, after the auction or on demand (the lead bid stays locked until end), <br/>
+     * bidders who cleared their local state are skipped by the contract, their deposit is forfeited
+     */
+    public List<PendingTransactionResponse> claimAll(Collection<Address> bidders) throws Exception {
+        List<List<Address>> calls = Lists.partition(Lists.newArrayList(bidders), ACCOUNTS_PER_CALL);
+        TransactionParametersResponse sp = Utils.getSuggestedParams(pool);
+
+        // send all groups first, then wait for them
+        List<String> txIds = Lists.newArrayList();
+        Exception failure = null;
+        for (List<List<Address>> group : Lists.partition(calls, CALLS_PER_GROUP)) {
+            List<Transaction> txns = group.stream().map(
+                accounts -> Transaction.ApplicationCallTransactionBuilder().sender(sender.getAddress())
+                    .applicationId(appID).args(Lists.newArrayList("claim".getBytes()))
+                    .accounts(Lists.newArrayList(accounts)).suggestedParams(sp).build()).collect(Collectors.toList());
+            List<Object> signAccounts = Lists.<Object>newArrayList(Collections.nCopies(txns.size(), sender));
+
+            try {
+                txIds.add(Utils.sendTransaction(pool, Utils.signTransactions(signAccounts, txns)));
+            } catch (Exception e) {
+                failure = e;
+                break;
+            }
+        }
+
+        // the groups already sent still settle, wait for them before reporting the failure
+        List<PendingTransactionResponse> res = Lists.newArrayList();
+        for (String txId : txIds) {
+            res.add(Utils.waitForConfirmation(pool, txId, 10));
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return res;
+    }
+
+}
@@ -82,12 +82,13 @@ public class Utils {
         return groupTransactionBytes;
     }
 
-    public static PendingTransactionResponse waitForConfirmation(AlgodClient client, String txID, Integer timeout)
+    public static PendingTransactionResponse waitForConfirmation(AlgodClientPool pool, String txID, Integer timeout)
         throws Exception {
-        if (client == null || txID == null || timeout < 0) {
+        if (pool == null || txID == null || timeout < 0) {
             throw new IllegalArgumentException("Bad arguments for waitForConfirmation.");
         }
-        Response<NodeStatusResponse> resp = client.GetStatus().execute();
+        // status and WaitForBlock on the pinned node, which the transaction was sent to
+        Response<NodeStatusResponse> resp = pool.submit(client -> client.GetStatus().execute());
         if (!resp.isSuccessful()) {
             throw new Exception(resp.message());
         }
@@ -96,12 +97,14 @@ public class Utils {
         Long currentRound = startRound;
         while (currentRound < (startRound + timeout)) {
             // Check the pending transactions
-            Response<PendingTransactionResponse> resp2 = client.PendingTransactionInformation(txID).execute();
+            Response<PendingTransactionResponse> resp2 = pool.read(
+                client -> client.PendingTransactionInformation(txID).execute());
             if (resp2.isSuccessful()) {
                 PendingTransactionResponse pendingInfo = resp2.body();
                 if (pendingInfo != null) {
                     if (pendingInfo.confirmedRound != null && pendingInfo.confirmedRound > 0) {
-                        // Got the completed Transaction
+                        // Got the completed Transaction, later reads must see it
+                        pool.advanceReadRound(pendingInfo.confirmedRound);
                         return pendingInfo;
                     }
                     if (pendingInfo.poolError != null && pendingInfo.poolError.length() > 0) {
@@ -111,7 +114,7 @@ public class Utils {
                     }
                 }
             }
-            resp = client.WaitForBlock(currentRound).execute();
+            resp = pool.waitForBlock(currentRound);
             if (!resp.isSuccessful()) {
                 throw new Exception(resp.message());
             }
@@ -120,8 +123,9 @@ public class Utils {
         throw new Exception("Transaction not confirmed after " + timeout + " rounds!");
     }
 
-    public static String sendTransaction(AlgodClient client, byte[] rawTxn) throws Exception {
-        Response<PostTransactionsResponse> resp = client.RawTransaction().rawtxn(rawTxn).execute();
+    public static String sendTransaction(AlgodClientPool pool, byte[] rawTxn) throws Exception {
+        Response<PostTransactionsResponse> resp = pool.submit(
+            client -> client.RawTransaction().rawtxn(rawTxn).execute());
         if (!resp.isSuccessful()) {
             throw new RuntimeException("Send Transaction failed, code: " + resp.code() + ", msg: " + resp.message());
         }
@@ -137,28 +141,25 @@ public class Utils {
         return res;
     }
 
-    public static com.algorand.algosdk.v2.client.model.Account getAccountInfo(AlgodClient client, Account account)
+    public static com.algorand.algosdk.v2.client.model.Account getAccountInfo(AlgodClientPool pool, Account account)
         throws Exception {
-        Response<com.algorand.algosdk.v2.client.model.Account> respAcct = client.AccountInformation(
-            account.getAddress()).execute();
-        if (!respAcct.isSuccessful()) {
-            throw new Exception(respAcct.message());
-        }
-        return respAcct.body();
+        return getAccountInfo(pool, account.getAddress());
     }
 
-    public static com.algorand.algosdk.v2.client.model.Account getAccountInfo(AlgodClient client, Address address)
+    public static com.algorand.algosdk.v2.client.model.Account getAccountInfo(AlgodClientPool pool, Address address)
         throws Exception {
-        Response<com.algorand.algosdk.v2.client.model.Account> respAcct = client.AccountInformation(address).execute();
+        Response<com.algorand.algosdk.v2.client.model.Account> respAcct = pool.read(
+            client -> client.AccountInformation(address).execute());
         if (!respAcct.isSuccessful()) {
             throw new Exception(respAcct.message());
         }
         return respAcct.body();
     }
 
-    public static com.algorand.algosdk.v2.client.model.Application getApplicationInfo(AlgodClient client, Long appID)
-        throws Exception {
-        Response<com.algorand.algosdk.v2.client.model.Application> respApp = client.GetApplicationByID(appID).execute();
+    public static com.algorand.algosdk.v2.client.model.Application getApplicationInfo(AlgodClientPool pool,
+        Long appID) throws Exception {
+        Response<com.algorand.algosdk.v2.client.model.Application> respApp = pool.read(
+            client -> client.GetApplicationByID(appID).execute());
         if (!respApp.isSuccessful()) {
             throw new Exception(respApp.message());
         }
@@ -176,8 +177,8 @@ public class Utils {
 
     // type=1 -> bytes -> byte[]
     // type=2 -> uint  -> BigInteger
-    public static Map<String, Object> getApplicationGlobalState(AlgodClient client, Long appID) throws Exception {
-        com.algorand.algosdk.v2.client.model.Application application = getApplicationInfo(client, appID);
+    public static Map<String, Object> getApplicationGlobalState(AlgodClientPool pool, Long appID) throws Exception {
+        com.algorand.algosdk.v2.client.model.Application application = getApplicationInfo(pool, appID);
         return getKV(application.params.globalState);
     }
 
@@ -209,35 +210,28 @@ public class Utils {
         }, (oldValue, newValue) -> newValue));
     }
 
-    public static Map<Long, BigInteger> getAccountBalance(AlgodClient client, Account account) throws Exception {
-        Map<Long, BigInteger> res = new TreeMap<>();
-        com.algorand.algosdk.v2.client.model.Account _account = getAccountInfo(client, account);
-        res.put(0L, BigInteger.valueOf(_account.amount));
-        _account.assets.forEach(asset -> res.put(asset.assetId, asset.amount));
-        return res;
+    public static Map<Long, BigInteger> getAccountBalance(AlgodClientPool pool, Account account) throws Exception {
+        return getAccountBalance(pool, account.getAddress());
     }
 
-    public static Map<Long, BigInteger> getAccountBalance(AlgodClient client, Address address) throws Exception {
+    public static Map<Long, BigInteger> getAccountBalance(AlgodClientPool pool, Address address) throws Exception {
         Map<Long, BigInteger> res = new TreeMap<>();
-        com.algorand.algosdk.v2.client.model.Account _account = getAccountInfo(client, address);
+        com.algorand.algosdk.v2.client.model.Account _account = getAccountInfo(pool, address);
         res.put(0L, BigInteger.valueOf(_account.amount));
         _account.assets.forEach(asset -> res.put(asset.assetId, asset.amount));
         return res;
     }
 
-    public static TransactionParametersResponse getSuggestedParams(AlgodClient client) throws Exception {
-        return client.TransactionParams().execute().body();
+    public static TransactionParametersResponse getSuggestedParams(AlgodClientPool pool) throws Exception {
+        return pool.read(client -> client.TransactionParams().execute()).body();
     }
 
-    public static byte[] compileFile(AlgodClient client, String path) throws Exception {
+    public static byte[] compileFile(AlgodClientPool pool, String path) throws Exception {
         // read file
         byte[] data = Files.readAllBytes(Paths.get(path));
         // compile
-        CompileResponse response = client.TealCompile().source(data).execute().body();
-        byte[] program = Base64.getDecoder().decode(response.result);
-        //        LogicsigSignature logicsig = new LogicsigSignature(program);
-        //        System.out.println(logicsig.toAddress());
-        return program;
+        CompileResponse response = pool.read(client -> client.TealCompile().source(data).execute()).body();
+        return Base64.getDecoder().decode(response.result);
     }
 
 }